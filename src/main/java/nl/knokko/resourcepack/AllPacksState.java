@@ -6,32 +6,37 @@ import org.bukkit.command.CommandSender;
 
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
 
 public class AllPacksState {
 
 	private final File dataFolder;
-	private final String urlPrefix;
+	private final MirrorMonitor mirrorMonitor;
+	private final PackCoordinator coordinator;
+	private final TransferEngine transferEngine;
 
 	private final Queue<Runnable> bukkitThreadQueue = new ConcurrentLinkedQueue<>();
-	private final BlockingQueue<Runnable> backgroundThreadQueue = new LinkedBlockingQueue<>();
+	private final BackgroundTaskScheduler backgroundScheduler;
 
 	private final SinglePackState defaultState;
 	private final List<SinglePackState> worldStates = new ArrayList<>();
 
-	private boolean isStopped;
-
-	public AllPacksState(File dataFolder, String urlPrefix) {
+	public AllPacksState(
+			File dataFolder, MirrorMonitor mirrorMonitor, PackCoordinator coordinator,
+			int backgroundQueueCapacity, TransferEngine transferEngine
+	) {
 		this.dataFolder = dataFolder;
-		this.urlPrefix = urlPrefix;
+		this.mirrorMonitor = mirrorMonitor;
+		this.coordinator = coordinator;
+		this.transferEngine = transferEngine;
+		this.backgroundScheduler = new BackgroundTaskScheduler(backgroundQueueCapacity);
 
 		if (!dataFolder.isDirectory() && !dataFolder.mkdirs()) {
 			Bukkit.getLogger().severe("Failed to create data folder: " + dataFolder);
 		}
 		this.defaultState = new SinglePackState(
-				dataFolder, null, urlPrefix, bukkitThreadQueue, backgroundThreadQueue
+				dataFolder, null, mirrorMonitor, bukkitThreadQueue, backgroundScheduler, coordinator, transferEngine
 		);
 
 		File worldsFolder = new File(dataFolder + "/worlds");
@@ -40,23 +45,36 @@ public class AllPacksState {
 		}
 		for (File worldFolder : worldsFolder.listFiles()) {
 			this.worldStates.add(new SinglePackState(
-					worldFolder, worldFolder.getName(), urlPrefix, bukkitThreadQueue, backgroundThreadQueue
+					worldFolder, worldFolder.getName(), mirrorMonitor,
+					bukkitThreadQueue, backgroundScheduler, coordinator, transferEngine
 			));
 		}
 
 		new Thread(() -> {
-			while (!this.isStopped) {
+			while (true) {
+				Runnable nextTask;
 				try {
-					backgroundThreadQueue.take().run();
+					nextTask = backgroundScheduler.take();
 				} catch (InterruptedException shouldNotHappen) {
 					throw new RuntimeException(shouldNotHappen);
 				}
+				if (nextTask == null) break;
+				try {
+					nextTask.run();
+				} catch (RuntimeException unexpected) {
+					// This is the only background thread, so it must keep running
+					Bukkit.getLogger().log(Level.SEVERE, "A resource pack background task failed", unexpected);
+				}
 			}
 		}).start();
 	}
 
+	public BackgroundTaskScheduler getBackgroundScheduler() {
+		return backgroundScheduler;
+	}
+
 	public void stop() {
-		this.backgroundThreadQueue.add(() -> this.isStopped = true);
+		this.backgroundScheduler.stop();
 	}
 
 	public void updateBukkitThreadTasks() {
@@ -67,10 +85,10 @@ public class AllPacksState {
 		}
 	}
 
-	public synchronized void sync(CommandSender sender, String worldName) {
-		if (worldName == null) defaultState.sync(sender);
+	public synchronized void sync(CommandSender sender, String worldName, BackgroundTaskScheduler.Priority priority) {
+		if (worldName == null) defaultState.sync(sender, priority);
 		for (SinglePackState state : worldStates) {
-			if (worldName == null || worldName.equals(state.worldName)) state.sync(sender);
+			if (worldName == null || worldName.equals(state.worldName)) state.sync(sender, priority);
 		}
 	}
 
@@ -86,6 +104,20 @@ public class AllPacksState {
 		return Objects.requireNonNull(getState(worldName, false)).getCurrentResourcePackUrl();
 	}
 
+	public synchronized String getCurrentResourcePackId(String worldName) {
+		return Objects.requireNonNull(getState(worldName, false)).getCurrentResourcePackId();
+	}
+
+	/**
+	 * Returns the name under which the resource pack of the given world is reported: just the resource pack id
+	 * when the world uses the default resource pack, or the world name followed by the resource pack id otherwise.
+	 */
+	public synchronized String getPackLabel(String worldName) {
+		SinglePackState state = Objects.requireNonNull(getState(worldName, false));
+		String resourcePackId = state.getCurrentResourcePackId();
+		return state.worldName == null ? resourcePackId : state.worldName + "/" + resourcePackId;
+	}
+
 	public synchronized byte[] getBinarySha1Hash(String worldName) {
 		return Objects.requireNonNull(getState(worldName, false)).getBinarySha1Hash();
 	}
@@ -95,7 +127,7 @@ public class AllPacksState {
 		if (state == null) {
 			state = new SinglePackState(
 					new File(dataFolder + "/worlds/" + worldName),
-					worldName, urlPrefix, bukkitThreadQueue, backgroundThreadQueue
+					worldName, mirrorMonitor, bukkitThreadQueue, backgroundScheduler, coordinator, transferEngine
 			);
 			worldStates.add(state);
 		}
@@ -109,13 +141,20 @@ public class AllPacksState {
 		return true;
 	}
 
+	public synchronized boolean analyze(CommandSender sender, String worldName, PackAnalyzer analyzer) {
+		SinglePackState state = getState(worldName, true);
+		if (state == null) return false;
+		state.analyze(sender, analyzer);
+		return true;
+	}
+
 	public synchronized boolean remove(CommandSender sender, String worldName) {
 		SinglePackState state = getState(worldName, true);
 		if (state == null) return false;
 
-		if (state == defaultState) {
-			defaultState.clear(sender);
-		} else {
+		backgroundScheduler.cancel(state);
+		state.clear(sender);
+		if (state != defaultState) {
 			File folder = state.folder;
 			File[] files = folder.listFiles();
 			if (files != null) {
@@ -0,0 +1,119 @@
+package nl.knokko.resourcepack;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The task queue of the background thread. Each task has a key (typically the pack it belongs to), and at most 1
+ * task per key can be pending: submitting a task for a key that already has a pending task replaces the pending
+ * task, unless the pending task is more urgent. Tasks submitted by admins are executed before periodic tasks.
+ * <p>
+ * The capacity only limits the number of pending admin tasks: periodic tasks are already bounded by the number of
+ * keys, so they are never rejected.
+ */
+public class BackgroundTaskScheduler {
+
+	private final int capacity;
+	private final Map<Object, PendingTask> pendingTasks = new LinkedHashMap<>();
+
+	private long nextSequenceNumber;
+	private boolean isStopped;
+
+	public BackgroundTaskScheduler(int capacity) {
+		if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive, but is " + capacity);
+		this.capacity = capacity;
+	}
+
+	public synchronized SubmitResult submit(Object key, Priority priority, Runnable task) {
+		if (isStopped) return SubmitResult.STOPPED;
+
+		PendingTask existingTask = pendingTasks.get(key);
+		if (existingTask != null) {
+			// The pending task belongs to an admin, so it must not be replaced by a periodic task
+			if (existingTask.priority.ordinal() < priority.ordinal()) return SubmitResult.DISCARDED;
+
+			existingTask.task = task;
+			existingTask.priority = priority;
+			return SubmitResult.MERGED;
+		}
+
+		if (priority == Priority.ADMIN && countPendingTasks(Priority.ADMIN) >= capacity) return SubmitResult.FULL;
+
+		pendingTasks.put(key, new PendingTask(priority, nextSequenceNumber++, task));
+		notifyAll();
+		return SubmitResult.QUEUED;
+	}
+
+	private int countPendingTasks(Priority priority) {
+		int count = 0;
+		for (PendingTask task : pendingTasks.values()) {
+			if (task.priority == priority) count += 1;
+		}
+		return count;
+	}
+
+	public synchronized boolean cancel(Object key) {
+		return pendingTasks.remove(key) != null;
+	}
+
+	public synchronized int getNumPendingTasks() {
+		return pendingTasks.size();
+	}
+
+	/**
+	 * Waits until a task is pending, and removes and returns the most urgent pending task. Returns null when this
+	 * scheduler has been stopped.
+	 */
+	public synchronized Runnable take() throws InterruptedException {
+		while (pendingTasks.isEmpty() && !isStopped) wait();
+		if (isStopped) return null;
+
+		Map.Entry<Object, PendingTask> bestEntry = null;
+		for (Map.Entry<Object, PendingTask> entry : pendingTasks.entrySet()) {
+			if (bestEntry == null || entry.getValue().isMoreUrgentThan(bestEntry.getValue())) bestEntry = entry;
+		}
+
+		return pendingTasks.remove(bestEntry.getKey()).task;
+	}
+
+	/**
+	 * Discards all pending tasks and lets {@link #take()} return null. The task that is currently running (if any)
+	 * will still be finished.
+	 */
+	public synchronized void stop() {
+		isStopped = true;
+		pendingTasks.clear();
+		notifyAll();
+	}
+
+	public enum Priority {
+		ADMIN,
+		PERIODIC
+	}
+
+	public enum SubmitResult {
+		QUEUED,
+		MERGED,
+		DISCARDED,
+		FULL,
+		STOPPED
+	}
+
+	private static class PendingTask {
+
+		Priority priority;
+		final long sequenceNumber;
+		Runnable task;
+
+		PendingTask(Priority priority, long sequenceNumber, Runnable task) {
+			this.priority = priority;
+			this.sequenceNumber = sequenceNumber;
+			this.task = task;
+		}
+
+		boolean isMoreUrgentThan(PendingTask other) {
+			if (this.priority != other.priority) return this.priority.ordinal() < other.priority.ordinal();
+			return this.sequenceNumber < other.sequenceNumber;
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package nl.knokko.resourcepack;
+
+/**
+ * A histogram of durations with a fixed number of logarithmic buckets, so its memory usage doesn't grow with the
+ * number of recorded durations. Each bucket is about 19% wider than the previous one, which bounds the error of the
+ * estimated percentiles.
+ */
+public class LatencyHistogram {
+
+	private static final int NUM_BUCKETS = 64;
+	private static final int BUCKETS_PER_DOUBLING = 4;
+	private static final long SMALLEST_BOUND = 10;
+
+	private final long[] bucketCounts = new long[NUM_BUCKETS];
+	private long totalCount;
+	private long maxMillis;
+
+	private static long getUpperBound(int bucketIndex) {
+		return (long) Math.ceil(SMALLEST_BOUND * Math.pow(2.0, bucketIndex / (double) BUCKETS_PER_DOUBLING));
+	}
+
+	private static int getBucketIndex(long millis) {
+		if (millis <= SMALLEST_BOUND) return 0;
+		double doublings = Math.log(millis / (double) SMALLEST_BOUND) / Math.log(2.0);
+		return (int) Math.min(NUM_BUCKETS - 1, Math.ceil(doublings * BUCKETS_PER_DOUBLING));
+	}
+
+	public void record(long millis) {
+		bucketCounts[getBucketIndex(Math.max(0, millis))] += 1;
+		totalCount += 1;
+		maxMillis = Math.max(maxMillis, millis);
+	}
+
+	public long getCount() {
+		return totalCount;
+	}
+
+	/**
+	 * Estimates the given percentile (between 0 and 100) in milliseconds, or returns -1 if nothing was recorded.
+	 */
+	public long getPercentile(double percentile) {
+		if (totalCount == 0) return -1;
+
+		long targetCount = Math.max(1, (long) Math.ceil(totalCount * percentile / 100.0));
+		long seenCount = 0;
+		for (int index = 0; index < NUM_BUCKETS; index++) {
+			seenCount += bucketCounts[index];
+			if (seenCount >= targetCount) return Math.min(getUpperBound(index), maxMillis);
+		}
+		return maxMillis;
+	}
+
+	public String describe() {
+		if (totalCount == 0) return "no data";
+		return "p50 " + formatMillis(getPercentile(50)) + ", p90 " + formatMillis(getPercentile(90)) +
+				", p99 " + formatMillis(getPercentile(99)) + ", max " + formatMillis(maxMillis);
+	}
+
+	private static String formatMillis(long millis) {
+		if (millis < 1000) return millis + "ms";
+		return String.format("%.1fs", millis / 1000.0);
+	}
+}
@@ -0,0 +1,66 @@
+package nl.knokko.resourcepack;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A resource pack hosting service to which resource packs are uploaded, and the last known health and latency of it.
+ */
+public class MirrorHost {
+
+	private static final int MAX_NUM_FAILED_PROBES = 2;
+
+	public final String urlPrefix;
+
+	private final Set<String> storedResourcePackIds = ConcurrentHashMap.newKeySet();
+	private volatile int numFailedProbes;
+	private volatile long latencyMillis = -1;
+
+	public MirrorHost(String urlPrefix) {
+		this.urlPrefix = urlPrefix;
+	}
+
+	public String getDownloadUrl(String resourcePackId) {
+		return urlPrefix + "get-resource-pack/" + resourcePackId;
+	}
+
+	public String getUploadUrl(String resourcePackId) {
+		return urlPrefix + "upload-resource-pack/" + resourcePackId;
+	}
+
+	public boolean isHealthy() {
+		return numFailedProbes < MAX_NUM_FAILED_PROBES;
+	}
+
+	/**
+	 * Returns the smoothed latency in milliseconds, or -1 if it hasn't been measured yet.
+	 */
+	public long getLatencyMillis() {
+		return latencyMillis;
+	}
+
+	void recordProbe(boolean succeeded, long probeMillis) {
+		if (succeeded) {
+			numFailedProbes = 0;
+			long oldLatency = latencyMillis;
+			// An exponential moving average prevents a single slow probe from changing the preferred host
+			latencyMillis = oldLatency == -1 ? probeMillis : (7 * oldLatency + 3 * probeMillis) / 10;
+		} else {
+			numFailedProbes += 1;
+		}
+	}
+
+	public boolean hasResourcePack(String resourcePackId) {
+		return storedResourcePackIds.contains(resourcePackId);
+	}
+
+	public void setHasResourcePack(String resourcePackId, boolean hasResourcePack) {
+		if (hasResourcePack) storedResourcePackIds.add(resourcePackId);
+		else storedResourcePackIds.remove(resourcePackId);
+	}
+
+	public String describe() {
+		String health = isHealthy() ? "healthy" : "unreachable";
+		return urlPrefix + " is " + health + (latencyMillis != -1 ? ", latency " + latencyMillis + "ms" : "");
+	}
+}
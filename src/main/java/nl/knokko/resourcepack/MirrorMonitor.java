@@ -0,0 +1,146 @@
+package nl.knokko.resourcepack;
+
+import org.bukkit.Bukkit;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Keeps track of all resource pack hosts (the primary host and its mirrors), probes their health and latency
+ * periodically, and chooses the host from which players should download their resource pack.
+ */
+public class MirrorMonitor {
+
+	private static final int PROBE_TIMEOUT = 5000;
+
+	private final List<MirrorHost> hosts;
+	private final long probeInterval;
+	private final ExecutorService replicationExecutor;
+
+	private volatile boolean isStopped;
+	private Thread probeThread;
+
+	/**
+	 * @param urlPrefixes The URL prefixes of the hosts, where the first one is the primary host
+	 * @param probeInterval The time between 2 consecutive probes of each host, in milliseconds
+	 */
+	public MirrorMonitor(List<String> urlPrefixes, long probeInterval) {
+		if (urlPrefixes.isEmpty()) throw new IllegalArgumentException("At least 1 host is required");
+		List<MirrorHost> hosts = new ArrayList<>(urlPrefixes.size());
+		for (String urlPrefix : urlPrefixes) hosts.add(new MirrorHost(urlPrefix));
+		this.hosts = Collections.unmodifiableList(hosts);
+		this.probeInterval = probeInterval;
+
+		if (hosts.size() > 1) {
+			this.replicationExecutor = Executors.newFixedThreadPool(hosts.size(), task -> {
+				Thread thread = new Thread(task, "ResourcePackReplication");
+				thread.setDaemon(true);
+				return thread;
+			});
+		} else this.replicationExecutor = null;
+	}
+
+	public void start() {
+		// With only 1 host, there is nothing to choose, so probing would be useless
+		if (hosts.size() == 1) return;
+
+		this.probeThread = new Thread(() -> {
+			while (!isStopped) {
+				for (MirrorHost host : hosts) probe(host);
+				try {
+					Thread.sleep(probeInterval);
+				} catch (InterruptedException stopped) {
+					break;
+				}
+			}
+		}, "ResourcePackMirrorProbe");
+		this.probeThread.setDaemon(true);
+		this.probeThread.start();
+	}
+
+	public void stop() {
+		this.isStopped = true;
+		if (this.probeThread != null) this.probeThread.interrupt();
+		if (this.replicationExecutor != null) this.replicationExecutor.shutdownNow();
+	}
+
+	private void probe(MirrorHost host) {
+		long startTime = System.nanoTime();
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(host.urlPrefix).openConnection();
+			connection.setRequestMethod("HEAD");
+			connection.setConnectTimeout(PROBE_TIMEOUT);
+			connection.setReadTimeout(PROBE_TIMEOUT);
+			int responseCode = connection.getResponseCode();
+			connection.disconnect();
+
+			// Any response (even 404) proves that the host is reachable, unless it's a server error
+			host.recordProbe(responseCode < 500, (System.nanoTime() - startTime) / 1_000_000);
+		} catch (IOException unreachable) {
+			host.recordProbe(false, -1);
+		}
+	}
+
+	public List<MirrorHost> getHosts() {
+		return hosts;
+	}
+
+	public MirrorHost getPrimaryHost() {
+		return hosts.get(0);
+	}
+
+	/**
+	 * Returns all hosts, ordered such that the healthiest and fastest hosts come first.
+	 */
+	public List<MirrorHost> getHostsByPreference() {
+		List<MirrorHost> result = new ArrayList<>(hosts);
+		result.sort(Comparator.comparing((MirrorHost host) -> !host.isHealthy()).thenComparingLong(host -> {
+			long latency = host.getLatencyMillis();
+			return latency == -1 ? Long.MAX_VALUE : latency;
+		}));
+		return result;
+	}
+
+	/**
+	 * Chooses the host from which players should download the resource pack with the given id: the fastest healthy
+	 * host that is known to have it. If no such host exists, the primary host is chosen.
+	 */
+	public MirrorHost chooseHost(String resourcePackId) {
+		for (MirrorHost host : getHostsByPreference()) {
+			if (host.isHealthy() && host.hasResourcePack(resourcePackId)) return host;
+		}
+		return getPrimaryHost();
+	}
+
+	/**
+	 * Runs the given task for each of the given hosts in parallel, and waits until all of them are finished.
+	 */
+	public <T> List<T> forEachHost(List<MirrorHost> hosts, Function<MirrorHost, T> task) {
+		if (hosts.size() == 1 || replicationExecutor == null) {
+			List<T> results = new ArrayList<>(hosts.size());
+			for (MirrorHost host : hosts) results.add(task.apply(host));
+			return results;
+		}
+
+		List<Future<T>> futures = new ArrayList<>(hosts.size());
+		for (MirrorHost host : hosts) futures.add(replicationExecutor.submit(() -> task.apply(host)));
+
+		List<T> results = new ArrayList<>(hosts.size());
+		for (Future<T> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (InterruptedException interrupted) {
+				Thread.currentThread().interrupt();
+				return results;
+			} catch (ExecutionException failed) {
+				Bukkit.getLogger().severe("Failed to synchronize with a resource pack host: " + failed.getCause());
+				results.add(null);
+			}
+		}
+		return results;
+	}
+}
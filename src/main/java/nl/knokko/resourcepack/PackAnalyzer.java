@@ -0,0 +1,165 @@
+package nl.knokko.resourcepack;
+
+import org.bukkit.ChatColor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Analyzes the size of a resource pack, to find out which files and folders make it large. The entries are streamed
+ * one by one, so the pack is never loaded into memory.
+ */
+public class PackAnalyzer {
+
+	private static final int NUM_REPORTED_ITEMS = 10;
+
+	private final TransferEngine transferEngine;
+	private final List<Double> bandwidthsMbps;
+	private final long budgetBytes;
+
+	/**
+	 * @param bandwidthsMbps The client bandwidths (in megabits per second) for which the download time is estimated
+	 * @param budgetBytes A warning is given when the pack is larger than this, or 0 to disable the warning
+	 */
+	public PackAnalyzer(TransferEngine transferEngine, List<Double> bandwidthsMbps, long budgetBytes) {
+		this.transferEngine = transferEngine;
+		this.bandwidthsMbps = bandwidthsMbps;
+		this.budgetBytes = budgetBytes;
+	}
+
+	public List<String> analyze(File packFile) throws IOException, NoSuchAlgorithmException {
+		MessageDigest digest = MessageDigest.getInstance("SHA-1");
+
+		PriorityQueue<ZipEntry> largestEntries = new PriorityQueue<>(Comparator.comparingLong(ZipEntry::getCompressedSize));
+		Map<String, SizeTotal> folderSizes = new HashMap<>();
+		Map<ByteBuffer, DuplicateGroup> contentGroups = new HashMap<>();
+		SizeTotal packSize = new SizeTotal();
+		int numEntries = 0;
+
+		try (ZipFile zipFile = new ZipFile(packFile)) {
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if (entry.isDirectory()) continue;
+				numEntries += 1;
+
+				packSize.add(entry);
+				largestEntries.add(entry);
+				if (largestEntries.size() > NUM_REPORTED_ITEMS) largestEntries.poll();
+
+				// Only the direct parent folder is counted, since the ancestors (like assets/) would always be the largest
+				int slashIndex = entry.getName().lastIndexOf('/');
+				if (slashIndex > 0) {
+					String folder = entry.getName().substring(0, slashIndex + 1);
+					folderSizes.computeIfAbsent(folder, key -> new SizeTotal()).add(entry);
+				}
+
+				if (entry.getSize() != 0) {
+					try (InputStream entryInput = zipFile.getInputStream(entry)) {
+						transferEngine.transfer(Channels.newChannel(entryInput), null, digest, false, null);
+					}
+					contentGroups.computeIfAbsent(
+							ByteBuffer.wrap(digest.digest()), hash -> new DuplicateGroup(entry.getName())
+					).add(entry);
+				}
+			}
+		}
+
+		List<String> report = new ArrayList<>();
+		report.add(ChatColor.AQUA + "Analysis of " + packFile.getName() + ": " + formatSize(packFile.length()) +
+				" on disk, " + numEntries + " files, " + formatSize(packSize.uncompressedSize) + " uncompressed (" +
+				packSize.describeRatio() + ")");
+
+		for (double bandwidth : bandwidthsMbps) {
+			double seconds = 8.0 * packFile.length() / (bandwidth * 1_000_000);
+			report.add("Estimated download time at " + bandwidth + " Mbps: " + String.format("%.1f", seconds) + "s");
+		}
+		if (budgetBytes > 0 && packFile.length() > budgetBytes) {
+			report.add(ChatColor.YELLOW + "This resource pack exceeds the budget of " + formatSize(budgetBytes) +
+					" by " + formatSize(packFile.length() - budgetBytes));
+		}
+
+		report.add(ChatColor.AQUA + "Largest files:");
+		List<ZipEntry> sortedEntries = new ArrayList<>(largestEntries);
+		sortedEntries.sort(Comparator.comparingLong(ZipEntry::getCompressedSize).reversed());
+		for (ZipEntry entry : sortedEntries) {
+			report.add(" - " + entry.getName() + ": " + formatSize(entry.getCompressedSize()) + " (" +
+					formatRatio(entry.getCompressedSize(), entry.getSize()) + ")");
+		}
+
+		report.add(ChatColor.AQUA + "Largest folders (excluding their subfolders):");
+		folderSizes.entrySet().stream().sorted(
+				Comparator.comparingLong((Map.Entry<String, SizeTotal> entry) -> entry.getValue().compressedSize).reversed()
+		).limit(NUM_REPORTED_ITEMS).forEach(entry -> report.add(
+				" - " + entry.getKey() + ": " + formatSize(entry.getValue().compressedSize) + " (" +
+						entry.getValue().describeRatio() + ")"
+		));
+
+		List<DuplicateGroup> duplicates = new ArrayList<>();
+		for (DuplicateGroup group : contentGroups.values()) {
+			if (group.count > 1) duplicates.add(group);
+		}
+		if (duplicates.isEmpty()) {
+			report.add(ChatColor.GREEN + "No duplicate files were found");
+		} else {
+			duplicates.sort(Comparator.comparingLong((DuplicateGroup group) -> group.wastedBytes).reversed());
+			long totalWastedBytes = duplicates.stream().mapToLong(group -> group.wastedBytes).sum();
+			report.add(ChatColor.YELLOW + "Found " + duplicates.size() + " files with duplicates, which waste " +
+					formatSize(totalWastedBytes) + ":");
+			for (DuplicateGroup group : duplicates.subList(0, Math.min(NUM_REPORTED_ITEMS, duplicates.size()))) {
+				report.add(" - " + group.firstName + " has " + (group.count - 1) + " duplicate(s), wasting " +
+						formatSize(group.wastedBytes));
+			}
+		}
+		return report;
+	}
+
+	private static String formatSize(long numBytes) {
+		if (numBytes < 1000) return numBytes + " B";
+		if (numBytes < 1_000_000) return String.format("%.1f kB", numBytes / 1000.0);
+		return String.format("%.1f MB", numBytes / 1_000_000.0);
+	}
+
+	private static String formatRatio(long compressedSize, long uncompressedSize) {
+		if (uncompressedSize <= 0) return "empty";
+		return String.format("compressed to %.0f%%", 100.0 * compressedSize / uncompressedSize);
+	}
+
+	private static class SizeTotal {
+
+		long compressedSize, uncompressedSize;
+
+		void add(ZipEntry entry) {
+			compressedSize += Math.max(0, entry.getCompressedSize());
+			uncompressedSize += Math.max(0, entry.getSize());
+		}
+
+		String describeRatio() {
+			return formatRatio(compressedSize, uncompressedSize);
+		}
+	}
+
+	private static class DuplicateGroup {
+
+		final String firstName;
+		int count;
+		long wastedBytes;
+
+		DuplicateGroup(String firstName) {
+			this.firstName = firstName;
+		}
+
+		void add(ZipEntry entry) {
+			if (count > 0) wastedBytes += Math.max(0, entry.getCompressedSize());
+			count += 1;
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package nl.knokko.resourcepack;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Coordinates the synchronization work of multiple servers that share the same resource packs. All servers point
+ * to the same shared folder. For each pack, the server that manages to lock the lock file of that pack does the
+ * synchronization (and upload, if needed), and publishes the result in the state file of that pack. The other
+ * servers simply adopt the published state rather than contacting the resource pack server themselves.
+ * <p>
+ * This class only uses the file system, so it can be used by any number of local processes.
+ */
+public class PackCoordinator {
+
+	private static final long LEASE_POLL_INTERVAL = 500;
+
+	private final File sharedFolder;
+	private final String nodeName;
+	private final long leaseMillis;
+
+	public PackCoordinator(File sharedFolder, String nodeName, long leaseMillis) {
+		this.sharedFolder = sharedFolder;
+		this.nodeName = nodeName != null && !nodeName.isEmpty() ? nodeName : ManagementFactory.getRuntimeMXBean().getName();
+		this.leaseMillis = leaseMillis;
+
+		if (!sharedFolder.isDirectory() && !sharedFolder.mkdirs()) {
+			throw new IllegalArgumentException("Can't create coordination folder " + sharedFolder);
+		}
+	}
+
+	public String getNodeName() {
+		return nodeName;
+	}
+
+	/**
+	 * Checks whether the given published state is recent enough that this node doesn't need to synchronize the pack
+	 * with the given id itself.
+	 */
+	public boolean isFresh(SharedPackState shared, String resourcePackId) {
+		return shared != null && resourcePackId != null && resourcePackId.equals(shared.resourcePackId) &&
+				System.currentTimeMillis() - shared.syncTime < leaseMillis;
+	}
+
+	/**
+	 * Tries to acquire the lease for the given pack, without blocking. Returns null when another node currently
+	 * holds it.
+	 */
+	public Lease tryAcquire(String packKey) throws IOException {
+		FileChannel channel = FileChannel.open(
+				new File(sharedFolder, packKey + ".lock").toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE
+		);
+		try {
+			FileLock lock = channel.tryLock();
+			if (lock == null) {
+				channel.close();
+				return null;
+			}
+			return new Lease(packKey, channel, lock);
+		} catch (OverlappingFileLockException alreadyLockedByThisProcess) {
+			channel.close();
+			return null;
+		} catch (IOException lockFailed) {
+			channel.close();
+			throw lockFailed;
+		}
+	}
+
+	/**
+	 * Tries to acquire the lease for the given pack, and waits at most timeoutMillis milliseconds for the node that
+	 * currently holds it. Returns null when the lease couldn't be acquired in time.
+	 */
+	public Lease acquire(String packKey, long timeoutMillis) throws IOException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (true) {
+			Lease lease = tryAcquire(packKey);
+			if (lease != null || System.currentTimeMillis() >= deadline) return lease;
+
+			try {
+				Thread.sleep(LEASE_POLL_INTERVAL);
+			} catch (InterruptedException interrupted) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the lease of " + packKey);
+			}
+		}
+	}
+
+	/**
+	 * Reads the last state that was published for the given pack, or returns null if nothing was published yet.
+	 */
+	public SharedPackState read(String packKey) throws IOException {
+		File stateFile = getStateFile(packKey);
+		if (!stateFile.exists()) return null;
+
+		Properties properties = new Properties();
+		try (Reader input = new InputStreamReader(Files.newInputStream(stateFile.toPath()), StandardCharsets.UTF_8)) {
+			properties.load(input);
+		}
+		try {
+			return new SharedPackState(
+					properties.getProperty("id"),
+					parseHex(properties.getProperty("sha1")),
+					Long.parseLong(properties.getProperty("sync-time", "0")),
+					Long.parseLong(properties.getProperty("change-time", "0")),
+					parseHosts(properties.getProperty("hosts")),
+					properties.getProperty("node")
+			);
+		} catch (IllegalArgumentException corrupted) {
+			throw new IOException("Corrupted coordination state " + stateFile + ": " + corrupted.getMessage());
+		}
+	}
+
+	private File getStateFile(String packKey) {
+		return new File(sharedFolder, packKey + ".properties");
+	}
+
+	private static List<String> parseHosts(String hosts) {
+		if (hosts == null || hosts.trim().isEmpty()) return Collections.emptyList();
+		return Arrays.asList(hosts.trim().split("\\s+"));
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder result = new StringBuilder(2 * bytes.length);
+		for (byte value : bytes) result.append(String.format("%02x", value & 0xFF));
+		return result.toString();
+	}
+
+	private static byte[] parseHex(String hex) {
+		if (hex == null || hex.isEmpty()) return null;
+		if (hex.length() % 2 != 0) throw new IllegalArgumentException("Odd length of hex string " + hex);
+		byte[] result = new byte[hex.length() / 2];
+		for (int index = 0; index < result.length; index++) {
+			result[index] = (byte) Integer.parseInt(hex.substring(2 * index, 2 * index + 2), 16);
+		}
+		return result;
+	}
+
+	public class Lease implements Closeable {
+
+		private final String packKey;
+		private final FileChannel channel;
+		private final FileLock lock;
+
+		private Lease(String packKey, FileChannel channel, FileLock lock) {
+			this.packKey = packKey;
+			this.channel = channel;
+			this.lock = lock;
+		}
+
+		/**
+		 * Publishes the given state. The state file is replaced atomically, so other nodes can read it without
+		 * holding the lease. A null resourcePackId means that the pack was removed. The hostUrlPrefixes are the URL
+		 * prefixes of the hosts that are known to have the resource pack.
+		 */
+		public void publish(
+				String resourcePackId, byte[] sha1, long syncTime, long changeTime, Collection<String> hostUrlPrefixes
+		) throws IOException {
+			Properties properties = new Properties();
+			if (resourcePackId != null) properties.setProperty("id", resourcePackId);
+			if (sha1 != null) properties.setProperty("sha1", toHex(sha1));
+			properties.setProperty("sync-time", Long.toString(syncTime));
+			properties.setProperty("change-time", Long.toString(changeTime));
+			properties.setProperty("hosts", String.join(" ", hostUrlPrefixes));
+			properties.setProperty("node", nodeName);
+
+			File stateFile = getStateFile(packKey);
+			File tempFile = new File(sharedFolder, packKey + "." + nodeName.hashCode() + ".tmp");
+			try (Writer output = new OutputStreamWriter(Files.newOutputStream(tempFile.toPath()), StandardCharsets.UTF_8)) {
+				properties.store(output, null);
+			}
+			try {
+				Files.move(tempFile.toPath(), stateFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException noAtomicMove) {
+				Files.move(tempFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				lock.release();
+			} finally {
+				channel.close();
+			}
+		}
+	}
+
+	public static class SharedPackState {
+
+		public final String resourcePackId;
+		public final byte[] sha1;
+		public final long syncTime;
+		public final long changeTime;
+		public final List<String> hostUrlPrefixes;
+		public final String nodeName;
+
+		public SharedPackState(
+				String resourcePackId, byte[] sha1, long syncTime, long changeTime,
+				List<String> hostUrlPrefixes, String nodeName
+		) {
+			this.resourcePackId = resourcePackId;
+			this.sha1 = sha1;
+			this.syncTime = syncTime;
+			this.changeTime = changeTime;
+			this.hostUrlPrefixes = hostUrlPrefixes;
+			this.nodeName = nodeName;
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package nl.knokko.resourcepack;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.event.player.PlayerResourcePackStatusEvent;
+
+import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how long players wait for their resource pack: from the moment the server sends the pack, until the
+ * client accepts it, and until the client finished loading it (or failed to download it). The durations are
+ * aggregated per pack and per host, and every completed load is appended to a log file.
+ * <p>
+ * All methods except {@link #flushLog()} must be called from the Bukkit thread.
+ */
+public class PackLoadAnalytics {
+
+	private static final int MAX_NUM_KEYS = 50;
+	private static final int MAX_NUM_UNWRITTEN_LINES = 10_000;
+
+	private final File logFile;
+	private final long maxLogFileSize;
+
+	private final Map<UUID, PendingLoad> pendingLoads = new HashMap<>();
+	private final Map<String, LoadStatistics> packStatistics = createStatisticsMap();
+	private final Map<String, LoadStatistics> hostStatistics = createStatisticsMap();
+	private final Queue<String> unwrittenLogLines = new ConcurrentLinkedQueue<>();
+	// The log is flushed by the background thread, which can be busy with a slow transfer for a long time
+	private final AtomicInteger numUnwrittenLogLines = new AtomicInteger();
+	private final AtomicLong numDroppedLogLines = new AtomicLong();
+
+	public PackLoadAnalytics(File logFile, long maxLogFileSize) {
+		this.logFile = logFile;
+		this.maxLogFileSize = maxLogFileSize;
+	}
+
+	private static Map<String, LoadStatistics> createStatisticsMap() {
+		// Forget the least recently used packs/hosts to keep the memory usage bounded
+		return new LinkedHashMap<String, LoadStatistics>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, LoadStatistics> eldest) {
+				return size() > MAX_NUM_KEYS;
+			}
+		};
+	}
+
+	private static String getHost(String url) {
+		try {
+			URL parsedUrl = new URL(url);
+			return parsedUrl.getProtocol() + "://" + parsedUrl.getAuthority() + "/";
+		} catch (MalformedURLException invalid) {
+			return url;
+		}
+	}
+
+	public void onSend(UUID playerId, String packName, String url) {
+		pendingLoads.put(playerId, new PendingLoad(packName, getHost(url), System.currentTimeMillis()));
+	}
+
+	public void onStatus(UUID playerId, String playerName, PlayerResourcePackStatusEvent.Status status) {
+		PendingLoad load = pendingLoads.get(playerId);
+		if (load == null) return;
+
+		long currentTime = System.currentTimeMillis();
+		if (status == PlayerResourcePackStatusEvent.Status.ACCEPTED) {
+			load.acceptTime = currentTime;
+			return;
+		}
+
+		pendingLoads.remove(playerId);
+		if (status == PlayerResourcePackStatusEvent.Status.DECLINED) return;
+
+		boolean succeeded = status == PlayerResourcePackStatusEvent.Status.SUCCESSFULLY_LOADED;
+		packStatistics.computeIfAbsent(load.packName, key -> new LoadStatistics()).record(load, currentTime, succeeded);
+		hostStatistics.computeIfAbsent(load.host, key -> new LoadStatistics()).record(load, currentTime, succeeded);
+
+		if (numUnwrittenLogLines.get() >= MAX_NUM_UNWRITTEN_LINES) {
+			numDroppedLogLines.incrementAndGet();
+			return;
+		}
+		long acceptDuration = load.acceptTime != 0 ? load.acceptTime - load.sendTime : -1;
+		numUnwrittenLogLines.incrementAndGet();
+		unwrittenLogLines.add(Instant.ofEpochMilli(currentTime) + " " + playerName + " " + load.packName + " " +
+				load.host + " " + status + " accepted-after=" + acceptDuration + "ms total=" +
+				(currentTime - load.sendTime) + "ms");
+	}
+
+	public void onQuit(UUID playerId) {
+		pendingLoads.remove(playerId);
+	}
+
+	public void reset() {
+		packStatistics.clear();
+		hostStatistics.clear();
+	}
+
+	public void printStatistics(CommandSender sender) {
+		if (packStatistics.isEmpty()) {
+			sender.sendMessage("No resource pack loads have been measured yet.");
+			return;
+		}
+
+		sender.sendMessage(ChatColor.AQUA + "Resource pack load times per pack:");
+		for (Map.Entry<String, LoadStatistics> entry : packStatistics.entrySet()) {
+			entry.getValue().print(sender, entry.getKey());
+		}
+		sender.sendMessage(ChatColor.AQUA + "Resource pack load times per host:");
+		for (Map.Entry<String, LoadStatistics> entry : hostStatistics.entrySet()) {
+			entry.getValue().print(sender, entry.getKey());
+		}
+	}
+
+	/**
+	 * Appends the measurements of the completed loads to the log file. When the log file becomes too large, it is
+	 * moved to a backup file (replacing the previous backup). This should be called from the background thread.
+	 * At most {@link #MAX_NUM_UNWRITTEN_LINES} lines are kept between 2 flushes: the number of dropped lines is
+	 * written instead of the lines that didn't fit.
+	 */
+	public void flushLog() {
+		if (unwrittenLogLines.isEmpty() && numDroppedLogLines.get() == 0) return;
+
+		try {
+			if (logFile.length() > maxLogFileSize) {
+				File backupFile = new File(logFile.getPath() + ".1");
+				Files.move(logFile.toPath(), backupFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+
+			try (Writer output = new OutputStreamWriter(Files.newOutputStream(
+					logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND
+			), StandardCharsets.UTF_8)) {
+				while (true) {
+					String line = unwrittenLogLines.poll();
+					if (line == null) break;
+					numUnwrittenLogLines.decrementAndGet();
+					output.write(line);
+					output.write(System.lineSeparator());
+				}
+
+				long numDroppedLines = numDroppedLogLines.getAndSet(0);
+				if (numDroppedLines > 0) {
+					output.write(Instant.now() + " dropped " + numDroppedLines + " log lines because the log " +
+							"wasn't written in time");
+					output.write(System.lineSeparator());
+				}
+			}
+		} catch (IOException cantWrite) {
+			Bukkit.getLogger().warning("Failed to write " + logFile + ": " + cantWrite.getMessage());
+		}
+	}
+
+	private static class PendingLoad {
+
+		final String packName;
+		final String host;
+		final long sendTime;
+		long acceptTime;
+
+		PendingLoad(String packName, String host, long sendTime) {
+			this.packName = packName;
+			this.host = host;
+			this.sendTime = sendTime;
+		}
+	}
+
+	private static class LoadStatistics {
+
+		final LatencyHistogram acceptDurations = new LatencyHistogram();
+		final LatencyHistogram downloadDurations = new LatencyHistogram();
+		final LatencyHistogram totalDurations = new LatencyHistogram();
+		long numFailures;
+
+		void record(PendingLoad load, long finishTime, boolean succeeded) {
+			if (load.acceptTime != 0) acceptDurations.record(load.acceptTime - load.sendTime);
+			if (succeeded) {
+				if (load.acceptTime != 0) downloadDurations.record(finishTime - load.acceptTime);
+				totalDurations.record(finishTime - load.sendTime);
+			} else {
+				numFailures += 1;
+			}
+		}
+
+		void print(CommandSender sender, String name) {
+			sender.sendMessage(" - " + name + ": " + totalDurations.getCount() + " successful loads, " +
+					numFailures + " failed downloads");
+			sender.sendMessage("   until accepted: " + acceptDurations.describe());
+			sender.sendMessage("   accepted until loaded: " + downloadDurations.describe());
+			sender.sendMessage("   total: " + totalDurations.describe());
+		}
+	}
+}
@@ -5,13 +5,17 @@ import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.player.PlayerResourcePackStatusEvent;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
@@ -19,7 +23,12 @@ import java.util.Objects;
 public class ResourcePackPlugin extends JavaPlugin implements Listener {
 
 	private AllPacksState state;
+	private PackLoadAnalytics loadAnalytics;
+	private TransferEngine transferEngine;
 	private String urlPrefix;
+	private List<String> mirrorUrls;
+	private MirrorMonitor mirrorMonitor;
+	private String coordinationFolder;
 
 	@Override
 	public void onEnable() {
@@ -27,13 +36,54 @@ public class ResourcePackPlugin extends JavaPlugin implements Listener {
 		FileConfiguration config = this.getConfig();
 		Bukkit.getPluginManager().registerEvents(this, this);
 		this.urlPrefix = config.getString("resource-pack-host-url", "http://49.12.188.159/");
-		this.state = new AllPacksState(this.getDataFolder(), this.urlPrefix);
+		this.mirrorUrls = config.getStringList("mirror-host-urls");
+
+		List<String> hostUrls = new ArrayList<>(1 + this.mirrorUrls.size());
+		hostUrls.add(this.urlPrefix);
+		for (String mirrorUrl : this.mirrorUrls) hostUrls.add(mirrorUrl.endsWith("/") ? mirrorUrl : mirrorUrl + "/");
+		this.mirrorMonitor = new MirrorMonitor(hostUrls, 1000L * config.getLong("mirror-probe-seconds", 60));
+		this.mirrorMonitor.start();
+		this.coordinationFolder = config.getString("coordination-folder", "");
+
+		PackCoordinator coordinator = null;
+		if (this.coordinationFolder != null && !this.coordinationFolder.isEmpty()) {
+			try {
+				coordinator = new PackCoordinator(
+						new File(this.coordinationFolder), config.getString("coordination-node-name", ""),
+						60_000L * config.getLong("coordination-lease-minutes", 20)
+				);
+				Bukkit.getLogger().info("Coordinating resource pack synchronization as node " +
+						coordinator.getNodeName() + " via " + this.coordinationFolder);
+			} catch (IllegalArgumentException invalidFolder) {
+				Bukkit.getLogger().severe(invalidFolder.getMessage() + ", so coordination is disabled");
+			}
+		}
+		this.transferEngine = new TransferEngine(new TransferThrottle(
+				config.getLong("transfer-bytes-per-second", 0),
+				config.getInt("off-peak-start-hour", -1), config.getInt("off-peak-end-hour", 6),
+				1_000_000L * config.getLong("off-peak-minimum-megabytes", 50)
+		));
+		this.state = new AllPacksState(
+				this.getDataFolder(), this.mirrorMonitor, coordinator,
+				Math.max(1, config.getInt("background-queue-capacity", 20)), this.transferEngine
+		);
 
 		// Sync every 25 minutes
 		int syncPeriod = 20 * 60 * 25;
 		Bukkit.getScheduler().scheduleSyncRepeatingTask(
-				this, () -> this.state.sync(Bukkit.getConsoleSender(), null), syncPeriod, syncPeriod
+				this, () -> this.state.sync(
+						Bukkit.getConsoleSender(), null, BackgroundTaskScheduler.Priority.PERIODIC
+				), syncPeriod, syncPeriod
+		);
+
+		this.loadAnalytics = new PackLoadAnalytics(
+				new File(this.getDataFolder(), "load-times.log"),
+				1000L * config.getLong("load-time-log-max-kilobytes", 1000)
 		);
+		int logPeriod = 20 * 60;
+		Bukkit.getScheduler().scheduleSyncRepeatingTask(this, () -> this.state.getBackgroundScheduler().submit(
+				this.loadAnalytics, BackgroundTaskScheduler.Priority.PERIODIC, this.loadAnalytics::flushLog
+		), logPeriod, logPeriod);
 
 		// Some actions of the resource pack state must happen on the Bukkit thread
 		Bukkit.getScheduler().scheduleSyncRepeatingTask(this, this.state::updateBukkitThreadTasks, 20, 20);
@@ -42,6 +92,13 @@ public class ResourcePackPlugin extends JavaPlugin implements Listener {
 	@Override
 	public void onDisable() {
 		this.state.stop();
+		this.mirrorMonitor.stop();
+		this.loadAnalytics.flushLog();
+	}
+
+	private void sendResourcePack(Player player, String worldName, String url, byte[] sha1) {
+		player.setResourcePack(url, sha1);
+		this.loadAnalytics.onSend(player.getUniqueId(), this.state.getPackLabel(worldName), url);
 	}
 
 	@EventHandler
@@ -52,7 +109,7 @@ public class ResourcePackPlugin extends JavaPlugin implements Listener {
 			String resourcePackUrl = this.state.getCurrentResourcePackUrl(worldName);
 			byte[] sha1 = this.state.getBinarySha1Hash(worldName);
 			if (resourcePackUrl != null && sha1 != null) {
-				event.getPlayer().setResourcePack(resourcePackUrl, sha1);
+				this.sendResourcePack(event.getPlayer(), worldName, resourcePackUrl, sha1);
 			}
 		}
 	}
@@ -70,16 +127,22 @@ public class ResourcePackPlugin extends JavaPlugin implements Listener {
 			byte[] newHash = this.state.getBinarySha1Hash(newWorldName);
 			if (!Objects.equals(oldUrl, newUrl) || !Arrays.equals(oldHash, newHash)) {
 				if (newUrl != null && newHash != null) {
-					event.getPlayer().setResourcePack(newUrl, newHash);
+					this.sendResourcePack(event.getPlayer(), newWorldName, newUrl, newHash);
 				}
 			}
 		}
 	}
 
+	@EventHandler
+	public void forgetLoadOnQuit(PlayerQuitEvent event) {
+		this.loadAnalytics.onQuit(event.getPlayer().getUniqueId());
+	}
+
 	@EventHandler
 	public void forceResourcePack(PlayerResourcePackStatusEvent event) {
 		if (GeyserSupport.isBedrock(event.getPlayer()) || FloodgateSupport.isBedrock(event.getPlayer())) return;
 		FileConfiguration config = this.getConfig();
+		this.loadAnalytics.onStatus(event.getPlayer().getUniqueId(), event.getPlayer().getName(), event.getStatus());
 
 		if (event.getStatus() == PlayerResourcePackStatusEvent.Status.DECLINED) {
 			String rejectCommand = config.getString("reject-command");
@@ -183,7 +246,38 @@ public class ResourcePackPlugin extends JavaPlugin implements Listener {
 			} else if (args[0].equals("sync")) {
 				if (sender.hasPermission("resourcepack.sync")) {
 					String worldName = args.length == 2 ? args[1] : null;
-					this.state.sync(sender, worldName);
+					this.state.sync(sender, worldName, BackgroundTaskScheduler.Priority.ADMIN);
+				} else {
+					sender.sendMessage(ChatColor.DARK_RED + "You don't have access to this command");
+				}
+			} else if (args[0].equals("analyze")) {
+				if (sender.hasPermission("resourcepack.status")) {
+					String worldName = args.length == 2 ? args[1] : null;
+					PackAnalyzer analyzer = new PackAnalyzer(
+							this.transferEngine, getConfig().getDoubleList("analyze-bandwidths-mbps"),
+							1_000_000L * getConfig().getLong("pack-size-budget-megabytes", 0)
+					);
+					if (!this.state.analyze(sender, worldName, analyzer)) {
+						sender.sendMessage(ChatColor.RED + "No resourcepack is configured for world " + worldName);
+					}
+				} else {
+					sender.sendMessage(ChatColor.DARK_RED + "You don't have access to this command");
+				}
+			} else if (args[0].equals("loadtimes")) {
+				if (sender.hasPermission("resourcepack.status")) {
+					if (args.length == 2 && args[1].equals("reset")) {
+						// Resetting deletes the collected statistics, so it requires more than the status permission
+						if (sender.hasPermission("resourcepack.changeid")) {
+							this.loadAnalytics.reset();
+							sender.sendMessage(ChatColor.GREEN + "The resource pack load times have been reset");
+						} else {
+							sender.sendMessage(ChatColor.DARK_RED + "You don't have access to this command");
+						}
+					} else if (args.length == 1) {
+						this.loadAnalytics.printStatistics(sender);
+					} else {
+						sender.sendMessage(ChatColor.RED + "You should use /rpack loadtimes [reset]");
+					}
 				} else {
 					sender.sendMessage(ChatColor.DARK_RED + "You don't have access to this command");
 				}
@@ -195,6 +289,14 @@ public class ResourcePackPlugin extends JavaPlugin implements Listener {
 						sender.sendMessage(ChatColor.YELLOW + "It looks like you changed the resource pack host url. " +
 								"This change will be applied after you restart the server.");
 					}
+					if (!Objects.equals(this.mirrorUrls, getConfig().getStringList("mirror-host-urls"))) {
+						sender.sendMessage(ChatColor.YELLOW + "It looks like you changed the mirror host urls. " +
+								"This change will be applied after you restart the server.");
+					}
+					if (!Objects.equals(this.coordinationFolder, getConfig().getString("coordination-folder", ""))) {
+						sender.sendMessage(ChatColor.YELLOW + "It looks like you changed the coordination folder. " +
+								"This change will be applied after you restart the server.");
+					}
 				} else {
 					sender.sendMessage(ChatColor.DARK_RED + "You don't have access to this command");
 				}
@@ -10,41 +10,67 @@ import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.security.DigestInputStream;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.Queue;
 
 public class SinglePackState {
 
+	private static final long ADMIN_LEASE_TIMEOUT = 60_000;
+	private static final int CONNECT_TIMEOUT = 10_000;
+	private static final int READ_TIMEOUT = 30_000;
+
 	public final File folder;
 	public final String worldName;
-	private final String urlPrefix;
+	private final MirrorMonitor mirrorMonitor;
 	private final Queue<Runnable> bukkitThreadQueue;
-	private final Queue<Runnable> backgroundThreadQueue;
+	private final BackgroundTaskScheduler backgroundScheduler;
+	private final PackCoordinator coordinator;
+	private final TransferEngine transferEngine;
+	private final TransferThrottle transferThrottle;
 
 	private String currentResourcePackId;
 	private byte[] binarySha1Hash;
 	private long lastSyncTime = 0L;
+	private long lastChangeTime = 0L;
+	private long lastTransferSize = 0L;
+	private long lastTransferDuration = 0L;
+	private CommandSender pendingAdminSender;
 
 	public SinglePackState(
-			File folder, String worldName, String urlPrefix,
+			File folder, String worldName, MirrorMonitor mirrorMonitor,
 			Queue<Runnable> bukkitThreadQueue,
-			Queue<Runnable> backgroundThreadQueue
+			BackgroundTaskScheduler backgroundScheduler,
+			PackCoordinator coordinator,
+			TransferEngine transferEngine
 	) {
 		this.folder = folder;
 		this.worldName = worldName;
 		this.bukkitThreadQueue = bukkitThreadQueue;
-		this.backgroundThreadQueue = backgroundThreadQueue;
-		this.urlPrefix = urlPrefix;
+		this.backgroundScheduler = backgroundScheduler;
+		this.coordinator = coordinator;
+		this.transferEngine = transferEngine;
+		this.transferThrottle = transferEngine.getThrottle();
+		this.mirrorMonitor = mirrorMonitor;
 
 		if (!folder.isDirectory() && !folder.mkdirs()) {
 			Bukkit.getLogger().severe("Can't create folder " + folder);
 		}
+		if (coordinator != null) this.lastChangeTime = this.loadLastChangeTime();
 
 		List<File> candidateResourcePackFiles = new ArrayList<>(1);
 		File[] existingFiles = folder.listFiles();
@@ -80,7 +106,10 @@ public class SinglePackState {
 
 			this.currentResourcePackId = resourcePackFile.getName().substring(0, resourcePackFile.getName().length() - 4);
 			this.updateSha1Hash();
-			this.sync(Bukkit.getConsoleSender());
+			this.sync(Bukkit.getConsoleSender(), BackgroundTaskScheduler.Priority.PERIODIC);
+		} else if (coordinator != null) {
+			// Another server may have published a resource pack that this server adopted without downloading it
+			this.sync(null, BackgroundTaskScheduler.Priority.PERIODIC);
 		}
 	}
 
@@ -88,13 +117,40 @@ public class SinglePackState {
 		return new File(this.folder + "/" + this.currentResourcePackId + ".zip");
 	}
 
-	private synchronized void updateSha1Hash() {
+	private File getChangeTimeFile() {
+		return new File(this.folder + "/pack-change-time.txt");
+	}
+
+	private long loadLastChangeTime() {
+		// Without a stored change time, the state published by the other servers should win
+		File changeTimeFile = this.getChangeTimeFile();
+		if (!changeTimeFile.exists()) return 0L;
 		try {
-			File resourcePackFile = this.getResourcePackFile();
-			this.propagate(
-					Files.newInputStream(resourcePackFile.toPath()), new VoidOutputStream(),
-					true, true, null, -1
-			);
+			return Long.parseLong(new String(Files.readAllBytes(changeTimeFile.toPath()), StandardCharsets.UTF_8).trim());
+		} catch (IOException | NumberFormatException invalid) {
+			Bukkit.getLogger().warning("Failed to read " + changeTimeFile + ": " + invalid.getMessage());
+			return 0L;
+		}
+	}
+
+	/**
+	 * Sets the time at which the resource pack id was last changed (or removed). When coordination is enabled, this
+	 * time is also stored on disk, since the other servers compare it with their own (wall-clock) change times.
+	 */
+	private void setLastChangeTime(long changeTime) {
+		this.lastChangeTime = changeTime;
+		if (coordinator == null) return;
+
+		try {
+			Files.write(this.getChangeTimeFile().toPath(), Long.toString(changeTime).getBytes(StandardCharsets.UTF_8));
+		} catch (IOException cantWrite) {
+			Bukkit.getLogger().warning("Failed to write " + this.getChangeTimeFile() + ": " + cantWrite.getMessage());
+		}
+	}
+
+	private synchronized void updateSha1Hash() {
+		try (FileChannel fileInput = FileChannel.open(this.getResourcePackFile().toPath(), StandardOpenOption.READ)) {
+			this.propagate(fileInput, null, true, false, null, -1);
 		} catch (IOException ioTrouble) {
 			Bukkit.getLogger().severe(
 					"Failed to read resource pack " + this.currentResourcePackId + ": " + ioTrouble.getMessage()
@@ -109,41 +165,27 @@ public class SinglePackState {
 	}
 
 	private void propagate(
-			InputStream source, OutputStream destination,
-			boolean updateSha1, boolean closeDestination,
+			ReadableByteChannel source, WritableByteChannel destination,
+			boolean updateSha1, boolean throttle,
 			CommandSender progressListener, long totalLength
 	) throws IOException, NoSuchAlgorithmException {
-		DigestInputStream digestInput = null;
-		if (updateSha1) {
-			digestInput = new DigestInputStream(source, MessageDigest.getInstance("SHA-1"));
-			source = digestInput;
-		}
-
-		byte[] buffer = new byte[100_000];
-		long totalNumReadBytes = 0;
-		while (true) {
-			int numReadBytes = source.read(buffer);
-			if (numReadBytes == -1) break;
-
-			destination.write(buffer, 0, numReadBytes);
-
-			long oldMillion = totalNumReadBytes / 1_000_000;
-			totalNumReadBytes += numReadBytes;
-			long newMillion = totalNumReadBytes / 1_000_000;
-			if (progressListener != null && oldMillion != newMillion) {
-				sendOnBukkitThread(
-						progressListener,
-						ChatColor.AQUA + "Progress: " + String.format("%.1f", 100.0 * totalNumReadBytes / totalLength) + "%"
-				);
-			}
-		}
+		MessageDigest digest = updateSha1 ? MessageDigest.getInstance("SHA-1") : null;
+
+		long startTime = System.nanoTime();
+		long totalNumBytes = transferEngine.transfer(
+				source, destination, digest, throttle, progressListener == null ? null :
+						numTransferredBytes -> bukkitThreadQueue.add(() -> progressListener.sendMessage(
+								ChatColor.AQUA + "Progress: " +
+										String.format("%.1f", 100.0 * numTransferredBytes / totalLength) + "%"
+						))
+		);
+
 		if (updateSha1) {
-			this.binarySha1Hash = digestInput.getMessageDigest().digest();
+			this.binarySha1Hash = digest.digest();
 		}
-		source.close();
-		destination.flush();
-		if (closeDestination) {
-			destination.close();
+		if (throttle) {
+			this.lastTransferSize = totalNumBytes;
+			this.lastTransferDuration = System.nanoTime() - startTime;
 		}
 	}
 
@@ -151,95 +193,380 @@ public class SinglePackState {
 		bukkitThreadQueue.add(() -> sender.sendMessage(message));
 	}
 
-	public synchronized void sync(CommandSender sender) {
-		if (this.currentResourcePackId == null) {
+	private String getMissingIdMessage() {
+		if (worldName == null) return ChatColor.RED + "You need to use " +
+				"'/rpack changeid <resource pack id>' before running this command";
+		else return ChatColor.RED + "You need to use '/rpack changeid <resource pack id> " +
+				worldName + "'before running this command.";
+	}
+
+	public synchronized void sync(CommandSender sender, BackgroundTaskScheduler.Priority priority) {
+		// When coordination is enabled, another server may have published a resource pack id for us
+		if (this.currentResourcePackId == null && coordinator == null) {
+			if (sender != null) sender.sendMessage(this.getMissingIdMessage());
+			return;
+		}
+
+		String expectedResourcePackId = this.currentResourcePackId;
+		BackgroundTaskScheduler.SubmitResult result = backgroundScheduler.submit(this, priority, () -> {
+			boolean hasResourcePackLocally;
+			synchronized (this) {
+				if (this.pendingAdminSender == sender) this.pendingAdminSender = null;
+				// The resource pack id may have been changed (or removed) while this task was waiting
+				if (!Objects.equals(expectedResourcePackId, this.currentResourcePackId)) return;
+				hasResourcePackLocally = this.getResourcePackFile().exists();
+			}
+
+			if (coordinator != null) this.coordinatedSync(sender, hasResourcePackLocally, priority);
+			else this.syncWithServer(sender, hasResourcePackLocally, priority);
+		});
+
+		boolean isAdmin = priority == BackgroundTaskScheduler.Priority.ADMIN;
+		if (result == BackgroundTaskScheduler.SubmitResult.MERGED && this.pendingAdminSender != null &&
+				this.pendingAdminSender != sender) {
+			this.pendingAdminSender.sendMessage(ChatColor.YELLOW + "Your synchronization of this resource pack was " +
+					"replaced by a newer one" + (sender != null ? " from " + sender.getName() : ""));
+		}
+		if (isAdmin && (result == BackgroundTaskScheduler.SubmitResult.QUEUED ||
+				result == BackgroundTaskScheduler.SubmitResult.MERGED)) {
+			this.pendingAdminSender = sender;
+		}
+
+		if (sender != null) {
+			if (result == BackgroundTaskScheduler.SubmitResult.MERGED) {
+				sender.sendMessage(ChatColor.YELLOW + "A synchronization of this resource pack was already pending, " +
+						"so it will be replaced by this one");
+			} else if (result == BackgroundTaskScheduler.SubmitResult.DISCARDED) {
+				sender.sendMessage(ChatColor.YELLOW + "A synchronization of this resource pack that was requested by " +
+						"an admin is already pending, so this one is skipped");
+			} else if (result == BackgroundTaskScheduler.SubmitResult.FULL) {
+				sender.sendMessage(ChatColor.RED + "Too many resource pack tasks are pending (" +
+						backgroundScheduler.getNumPendingTasks() + "), so the synchronization is skipped. " +
+						"Please try again later.");
+			} else if (result == BackgroundTaskScheduler.SubmitResult.STOPPED) {
+				sender.sendMessage(ChatColor.RED + "The plug-in is shutting down, so the synchronization is skipped.");
+			}
+		}
+	}
+
+	private String getCoordinationKey() {
+		return worldName == null ? "default" : "world-" + worldName;
+	}
+
+	private void coordinatedSync(
+			CommandSender sender, boolean hasResourcePackLocally, BackgroundTaskScheduler.Priority priority
+	) {
+		String packKey = this.getCoordinationKey();
+		// Periodic synchronizations can simply be skipped when another server is busy, but admin requests shouldn't
+		boolean isAdmin = priority == BackgroundTaskScheduler.Priority.ADMIN;
+		try (PackCoordinator.Lease lease = isAdmin ?
+				coordinator.acquire(packKey, ADMIN_LEASE_TIMEOUT) : coordinator.tryAcquire(packKey)
+		) {
+			if (lease == null) {
+				if (sender != null) {
+					if (isAdmin) sendOnBukkitThread(sender, ChatColor.RED + "Another server has been synchronizing " +
+							"this resource pack for more than " + ADMIN_LEASE_TIMEOUT / 1000 + " seconds. " +
+							"Please try again later.");
+					else sendOnBukkitThread(sender, ChatColor.YELLOW + "Another server is currently " +
+							"synchronizing this resource pack");
+				}
+				return;
+			}
+
+			PackCoordinator.SharedPackState shared = coordinator.read(packKey);
+			// Servers that adopted a resource pack without downloading it forget its id when they restart, but they
+			// still know the change time of the adopted state
+			boolean forgotAdoptedId = this.currentResourcePackId == null && shared != null &&
+					shared.changeTime == this.lastChangeTime;
+			if (shared != null && (shared.changeTime > this.lastChangeTime || forgotAdoptedId) &&
+					!Objects.equals(shared.resourcePackId, this.currentResourcePackId)) {
+				if (shared.resourcePackId == null) {
+					this.adoptRemoval(sender, shared);
+					return;
+				}
+				if (shared.sha1 != null) {
+					this.adopt(sender, shared);
+					return;
+				}
+			}
+
+			if (this.currentResourcePackId == null) {
+				if (sender != null) sendOnBukkitThread(sender, this.getMissingIdMessage());
+				return;
+			}
+
+			// Admins may want to force a re-check after a host outage, so only periodic synchronizations are skipped
+			if (!isAdmin && coordinator.isFresh(shared, this.currentResourcePackId)) {
+				this.lastSyncTime = shared.syncTime;
+				if (this.binarySha1Hash == null) this.binarySha1Hash = shared.sha1;
+				this.adoptHosts(shared);
+				if (sender != null) sendOnBukkitThread(sender, ChatColor.GREEN + "Sync succeeded: server " +
+						shared.nodeName + " synchronized this resource pack recently");
+				return;
+			}
+
+			long previousSyncTime = this.lastSyncTime;
+			this.syncWithServer(sender, hasResourcePackLocally, priority);
+
+			String syncedResourcePackId = this.currentResourcePackId;
+			byte[] syncedHash = this.binarySha1Hash;
+			if (this.lastSyncTime != previousSyncTime && syncedResourcePackId != null && syncedHash != null) {
+				List<String> hostUrlPrefixes = new ArrayList<>();
+				for (MirrorHost host : mirrorMonitor.getHosts()) {
+					if (host.hasResourcePack(syncedResourcePackId)) hostUrlPrefixes.add(host.urlPrefix);
+				}
+				lease.publish(syncedResourcePackId, syncedHash, this.lastSyncTime, this.lastChangeTime, hostUrlPrefixes);
+			}
+		} catch (IOException coordinationTrouble) {
+			sendOnBukkitThread(sender, ChatColor.RED + "Failed to coordinate with the other servers: " +
+					coordinationTrouble.getMessage());
+		}
+	}
+
+	private void adopt(CommandSender sender, PackCoordinator.SharedPackState shared) {
+		synchronized (this) {
+			if (this.currentResourcePackId != null) {
+				File oldFile = this.getResourcePackFile();
+				if (oldFile.exists() && !oldFile.delete()) {
+					Bukkit.getLogger().warning("Failed to delete outdated resource pack file " + oldFile);
+				}
+			}
+			this.currentResourcePackId = shared.resourcePackId;
+			this.binarySha1Hash = shared.sha1;
+			this.lastSyncTime = shared.syncTime;
+			this.setLastChangeTime(shared.changeTime);
+		}
+		this.adoptHosts(shared);
+
+		bukkitThreadQueue.add(() -> {
 			if (sender != null) {
-				if (worldName == null) sender.sendMessage(ChatColor.RED + "You need to use " +
-						"'/rpack changeid <resource pack id>' before running this command");
-				else sender.sendMessage(ChatColor.RED + "You need to use '/rpack changeid <resource pack id> " +
-						worldName + "'before running this command.");
+				sender.sendMessage(ChatColor.BLUE + "Server " + shared.nodeName + " changed the resource pack id to " +
+						shared.resourcePackId);
 			}
-			return;
+			this.notifyPlayersAboutNewResourcePack();
+		});
+	}
+
+	/**
+	 * Marks the hosts that the other server found the resource pack on, so players of this server can be sent to
+	 * the mirrors as well.
+	 */
+	private void adoptHosts(PackCoordinator.SharedPackState shared) {
+		for (MirrorHost host : mirrorMonitor.getHosts()) {
+			host.setHasResourcePack(shared.resourcePackId, shared.hostUrlPrefixes.contains(host.urlPrefix));
 		}
+	}
 
-		File resourcePackFile = this.getResourcePackFile();
-		boolean hasResourcePackLocally = resourcePackFile.exists();
-
-		backgroundThreadQueue.add(() -> {
-			try {
-				URL url = new URL(this.getCurrentResourcePackUrl());
-				HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-				if (!hasResourcePackLocally) {
-					connection.setRequestMethod("GET");
-				} else {
-					connection.setRequestMethod("HEAD");
+	private void adoptRemoval(CommandSender sender, PackCoordinator.SharedPackState shared) {
+		synchronized (this) {
+			File oldFile = this.getResourcePackFile();
+			if (oldFile.exists() && !oldFile.delete()) {
+				Bukkit.getLogger().warning("Failed to delete removed resource pack file " + oldFile);
+			}
+			this.currentResourcePackId = null;
+			this.binarySha1Hash = null;
+			this.lastSyncTime = 0L;
+			this.setLastChangeTime(shared.changeTime);
+		}
+
+		if (sender != null) sendOnBukkitThread(sender, ChatColor.BLUE + "Server " + shared.nodeName +
+				" removed this resource pack");
+	}
+
+	private void publishRemoval(CommandSender sender, long removalTime) {
+		String packKey = this.getCoordinationKey();
+		BackgroundTaskScheduler.SubmitResult result = backgroundScheduler.submit(
+				"remove " + packKey, BackgroundTaskScheduler.Priority.ADMIN, () -> {
+					try (PackCoordinator.Lease lease = coordinator.acquire(packKey, ADMIN_LEASE_TIMEOUT)) {
+						if (lease == null) {
+							sendOnBukkitThread(sender, ChatColor.RED + "Failed to tell the other servers that this " +
+									"resource pack was removed, because another server is still synchronizing it");
+							return;
+						}
+
+						PackCoordinator.SharedPackState shared = coordinator.read(packKey);
+						if (shared == null || shared.changeTime < removalTime) {
+							lease.publish(null, null, 0L, removalTime, Collections.emptyList());
+						}
+					} catch (IOException coordinationTrouble) {
+						sendOnBukkitThread(sender, ChatColor.RED + "Failed to tell the other servers that this resource " +
+								"pack was removed: " + coordinationTrouble.getMessage());
+					}
 				}
-				connection.connect();
-
-				int responseCode = connection.getResponseCode();
-				if (responseCode == 200) {
-					if (!hasResourcePackLocally) {
-						sendOnBukkitThread(sender, ChatColor.BLUE + "Downloading resource pack from the " +
-								"resource pack server...");
-						try {
-							OutputStream fileOutput = Files.newOutputStream(resourcePackFile.toPath());
+		);
+
+		if (result == BackgroundTaskScheduler.SubmitResult.FULL) {
+			sender.sendMessage(ChatColor.RED + "Too many resource pack tasks are pending, so the other servers " +
+					"won't be told that this resource pack was removed. Please try again later.");
+		} else if (result == BackgroundTaskScheduler.SubmitResult.STOPPED) {
+			sender.sendMessage(ChatColor.RED + "The plug-in is shutting down, so the other servers won't be told " +
+					"that this resource pack was removed.");
+		}
+	}
+
+	private String getPostponeMessage(String transferName) {
+		return ChatColor.YELLOW + "The " + transferName + " of the resource pack is postponed until the off-peak " +
+				"window (" + transferThrottle.describeOffPeakWindow() + "). Use /rpack sync to do it right now.";
+	}
+
+	private void syncWithServer(
+			CommandSender sender, boolean hasResourcePackLocally, BackgroundTaskScheduler.Priority priority
+	) {
+		String resourcePackId = this.currentResourcePackId;
+		List<MirrorHost> allHosts = mirrorMonitor.getHostsByPreference();
+		// Unreachable mirrors would only slow down the synchronization, unless all hosts seem to be unreachable
+		List<MirrorHost> hosts = new ArrayList<>(allHosts.size());
+		for (MirrorHost host : allHosts) {
+			if (host.isHealthy()) hosts.add(host);
+		}
+		if (hosts.isEmpty()) hosts = allHosts;
+		List<HostSyncResult> results = new ArrayList<>(hosts.size());
+
+		List<MirrorHost> remainingHosts = hosts;
+		if (!hasResourcePackLocally) {
+			// Download the resource pack from the fastest host that has it
+			for (MirrorHost host : hosts) {
+				HostSyncResult result = this.syncWithHost(sender, false, priority, host);
+				results.add(result);
+				if (result == HostSyncResult.TRANSFERRED || result == HostSyncResult.POSTPONED) break;
+			}
+
+			if (!results.contains(HostSyncResult.TRANSFERRED)) {
+				if (results.size() == allHosts.size() && results.stream().allMatch(result -> result == HostSyncResult.MISSING)) {
+					if (sender != null) {
+						sendOnBukkitThread(sender, "The resource pack server no longer has this " +
+								"resource pack. You need to re-upload it.");
+					}
+					this.currentResourcePackId = null;
+				}
+				return;
+			}
+			remainingHosts = new ArrayList<>(hosts);
+			remainingHosts.remove(results.size() - 1);
+		}
+
+		// Make sure that all (other) hosts have the resource pack as well
+		if (!remainingHosts.isEmpty()) {
+			results.addAll(mirrorMonitor.forEachHost(
+					remainingHosts, host -> this.syncWithHost(sender, true, priority, host)
+			));
+		}
+
+		if (results.contains(HostSyncResult.TRANSFERRED) && resourcePackId.equals(this.currentResourcePackId)) {
+			bukkitThreadQueue.add(this::notifyPlayersAboutNewResourcePack);
+		}
+	}
+
+	private String getHostLabel(MirrorHost host) {
+		if (mirrorMonitor.getHosts().size() == 1) return "";
+		else return "[" + host.urlPrefix + "] ";
+	}
+
+	private HostSyncResult syncWithHost(
+			CommandSender sender, boolean hasResourcePackLocally,
+			BackgroundTaskScheduler.Priority priority, MirrorHost host
+	) {
+		// Only transfers that were requested by admins are urgent
+		boolean mayPostpone = priority != BackgroundTaskScheduler.Priority.ADMIN;
+		String label = this.getHostLabel(host);
+		String resourcePackId = this.currentResourcePackId;
+		File resourcePackFile = this.getResourcePackFile();
+		HostSyncResult result = HostSyncResult.FAILED;
+		try {
+			URL url = new URL(host.getDownloadUrl(resourcePackId));
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			if (!hasResourcePackLocally) {
+				connection.setRequestMethod("GET");
+			} else {
+				connection.setRequestMethod("HEAD");
+			}
+			connection.setConnectTimeout(CONNECT_TIMEOUT);
+			connection.setReadTimeout(READ_TIMEOUT);
+			connection.connect();
+
+			int responseCode = connection.getResponseCode();
+			if (responseCode == 200) {
+				if (!hasResourcePackLocally && mayPostpone && transferThrottle.shouldPostpone(connection.getContentLengthLong())) {
+					if (sender != null) sendOnBukkitThread(sender, this.getPostponeMessage("download"));
+					result = HostSyncResult.POSTPONED;
+				} else if (!hasResourcePackLocally) {
+					sendOnBukkitThread(sender, ChatColor.BLUE + label + "Downloading resource pack from the " +
+							"resource pack server...");
+					// Download to a separate file, so a failed download never leaves a truncated resource pack behind
+					File partialFile = new File(resourcePackFile.getPath() + ".part");
+					try {
+						try (
+								ReadableByteChannel downloadInput = Channels.newChannel(connection.getInputStream());
+								FileChannel fileOutput = FileChannel.open(
+										partialFile.toPath(), StandardOpenOption.CREATE,
+										StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING
+								)
+						) {
 							this.propagate(
-									connection.getInputStream(), fileOutput,
-									true, true, sender, connection.getContentLength()
+									downloadInput, fileOutput, true, true, sender, connection.getContentLengthLong()
 							);
+						}
+						Files.move(partialFile.toPath(), resourcePackFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
 
-							bukkitThreadQueue.add(() -> {
-								if (sender != null) {
-									sender.sendMessage(ChatColor.BLUE + "Finished download resource pack from " +
-											"the resource pack server");
-								}
-								this.notifyPlayersAboutNewResourcePack();
-							});
-
-							this.lastSyncTime = System.currentTimeMillis();
-						} catch (IOException cantDownload) {
-							if (sender != null) {
-								sendOnBukkitThread(sender, ChatColor.RED + "Failed to download resource pack " +
-										"from the resource pack server: " + cantDownload.getMessage());
-							}
+						if (sender != null) {
+							sendOnBukkitThread(sender, ChatColor.BLUE + label + "Finished download resource pack " +
+									"from the resource pack server");
 						}
-					} else {
-						if (sender != null) sendOnBukkitThread(sender, ChatColor.GREEN + "Sync succeeded");
+
 						this.lastSyncTime = System.currentTimeMillis();
-					}
-				} else if (responseCode == 404) {
-					if (hasResourcePackLocally) {
-						try {
-							this.postResourcePack(sender);
-						} catch (IOException cantUpload) {
-							if (sender != null) {
-								sendOnBukkitThread(sender, "Failed to upload the resource pack to the " +
-										"resource pack server: " + cantUpload.getMessage());
-							}
-						}
-					} else {
+						result = HostSyncResult.TRANSFERRED;
+					} catch (IOException cantDownload) {
 						if (sender != null) {
-							sendOnBukkitThread(sender, "The resource pack server no longer has this " +
-									"resource pack. You need to re-upload it.");
+							sendOnBukkitThread(sender, ChatColor.RED + label + "Failed to download resource pack " +
+									"from the resource pack server: " + cantDownload.getMessage());
+						}
+					} finally {
+						if (partialFile.exists() && !partialFile.delete()) {
+							Bukkit.getLogger().warning("Failed to delete partially downloaded resource pack " + partialFile);
 						}
-						this.currentResourcePackId = null;
 					}
 				} else {
-					if (sender != null) {
-						sendOnBukkitThread(sender, "Got unexpected response code " + responseCode +
-								" from the resource pack server.");
+					if (sender != null) sendOnBukkitThread(sender, ChatColor.GREEN + label + "Sync succeeded");
+					this.lastSyncTime = System.currentTimeMillis();
+					result = HostSyncResult.EXISTED;
+				}
+			} else if (responseCode == 404) {
+				if (hasResourcePackLocally && mayPostpone && transferThrottle.shouldPostpone(resourcePackFile.length())) {
+					if (sender != null) sendOnBukkitThread(sender, label + this.getPostponeMessage("upload"));
+					result = HostSyncResult.POSTPONED;
+				} else if (hasResourcePackLocally) {
+					try {
+						if (this.postResourcePack(sender, host)) result = HostSyncResult.TRANSFERRED;
+					} catch (IOException cantUpload) {
+						if (sender != null) {
+							sendOnBukkitThread(sender, label + "Failed to upload the resource pack to the " +
+									"resource pack server: " + cantUpload.getMessage());
+						}
 					}
+				} else {
+					result = HostSyncResult.MISSING;
+				}
+			} else {
+				if (sender != null) {
+					sendOnBukkitThread(sender, label + "Got unexpected response code " + responseCode +
+							" from the resource pack server.");
 				}
-
-				connection.disconnect();
-			} catch (MalformedURLException badURL) {
-				sendOnBukkitThread(sender, ChatColor.RED + badURL.getMessage());
-			} catch (IOException cantReachServer) {
-				sendOnBukkitThread(sender, ChatColor.RED + "Can't connect to resource pack server: " + cantReachServer.getMessage());
-			} catch (NoSuchAlgorithmException noSha1Support) {
-				sendOnBukkitThread(sender, ChatColor.DARK_RED + "Your server doesn't support SHA-1, so this plug-in won't work.");
 			}
-		});
+
+			connection.disconnect();
+		} catch (MalformedURLException badURL) {
+			sendOnBukkitThread(sender, ChatColor.RED + label + badURL.getMessage());
+		} catch (IOException cantReachServer) {
+			sendOnBukkitThread(sender, ChatColor.RED + label + "Can't connect to resource pack server: " + cantReachServer.getMessage());
+		} catch (NoSuchAlgorithmException noSha1Support) {
+			sendOnBukkitThread(sender, ChatColor.DARK_RED + "Your server doesn't support SHA-1, so this plug-in won't work.");
+		}
+
+		if (result == HostSyncResult.EXISTED || result == HostSyncResult.TRANSFERRED) {
+			host.setHasResourcePack(resourcePackId, true);
+		}
+		if (result == HostSyncResult.MISSING) host.setHasResourcePack(resourcePackId, false);
+		return result;
 	}
 
 	public synchronized void changeId(CommandSender sender, String newResourcePackId) {
@@ -254,7 +581,8 @@ public class SinglePackState {
 		}
 
 		this.currentResourcePackId = newResourcePackId;
-		this.sync(sender);
+		this.setLastChangeTime(System.currentTimeMillis());
+		this.sync(sender, BackgroundTaskScheduler.Priority.ADMIN);
 	}
 
 	public synchronized void printStatus(CommandSender sender) {
@@ -277,59 +605,130 @@ public class SinglePackState {
 			} else {
 				sender.sendMessage(ChatColor.YELLOW + "This server hasn't synchronized with the resource pack server yet.");
 			}
+
+			if (mirrorMonitor.getHosts().size() > 1) {
+				for (MirrorHost host : mirrorMonitor.getHosts()) {
+					String storage = host.hasResourcePack(this.currentResourcePackId) ? "has" : "doesn't have";
+					sender.sendMessage(host.describe() + ", and " + storage + " this resource pack");
+				}
+			}
+			if (transferThrottle.isLimited()) {
+				sender.sendMessage("Resource pack transfers are limited to " +
+						transferThrottle.getBytesPerSecond() / 1000 + " kB/s");
+			}
+			if (this.lastTransferDuration > 0) {
+				sender.sendMessage("The last transfer of this resource pack moved " + this.lastTransferSize / 1000 +
+						" kB at " + String.format("%.1f", 1_000_000.0 * this.lastTransferSize / this.lastTransferDuration) +
+						" kB/s");
+			}
 		} else {
 			sender.sendMessage("This plug-in doesn't have a resource pack yet.");
 			sender.sendMessage("Use /rpack changeid <resource pack id>");
 		}
 	}
 
-	private void postResourcePack(CommandSender sender) throws IOException, NoSuchAlgorithmException {
-		URL url = new URL(urlPrefix + "upload-resource-pack/" + this.currentResourcePackId);
+	public synchronized void analyze(CommandSender sender, PackAnalyzer analyzer) {
+		if (this.currentResourcePackId == null) {
+			sender.sendMessage(this.getMissingIdMessage());
+			return;
+		}
+
+		File resourcePackFile = this.getResourcePackFile();
+		if (!resourcePackFile.exists()) {
+			sender.sendMessage(ChatColor.RED + "There is no back-up of the resource pack on this server, so it can't " +
+					"be analyzed. Use /rpack sync to download it.");
+			return;
+		}
+
+		BackgroundTaskScheduler.SubmitResult result = backgroundScheduler.submit(
+				"analyze " + this.getCoordinationKey(), BackgroundTaskScheduler.Priority.ADMIN, () -> {
+					try {
+						List<String> report = analyzer.analyze(resourcePackFile);
+						bukkitThreadQueue.add(() -> {
+							for (String line : report) sender.sendMessage(line);
+						});
+					} catch (IOException cantRead) {
+						sendOnBukkitThread(sender, ChatColor.RED + "Failed to analyze the resource pack: " +
+								cantRead.getMessage());
+					} catch (NoSuchAlgorithmException noSha1Support) {
+						sendOnBukkitThread(sender, ChatColor.DARK_RED + "Your server doesn't support SHA-1, so " +
+								"the resource pack can't be analyzed.");
+					} catch (RuntimeException invalidZip) {
+						// For instance, Java 8 can't read zip files with entry names that are not valid UTF-8
+						sendOnBukkitThread(sender, ChatColor.RED + "Failed to analyze the resource pack: " + invalidZip);
+					}
+				}
+		);
+
+		if (result == BackgroundTaskScheduler.SubmitResult.QUEUED) {
+			sender.sendMessage(ChatColor.BLUE + "Analyzing the resource pack...");
+		} else if (result == BackgroundTaskScheduler.SubmitResult.MERGED) {
+			sender.sendMessage(ChatColor.YELLOW + "An analysis of this resource pack was already pending, " +
+					"so it will be replaced by this one");
+		} else if (result == BackgroundTaskScheduler.SubmitResult.FULL) {
+			sender.sendMessage(ChatColor.RED + "Too many resource pack tasks are pending, so the analysis is " +
+					"skipped. Please try again later.");
+		}
+	}
+
+	private boolean postResourcePack(CommandSender sender, MirrorHost host) throws IOException, NoSuchAlgorithmException {
+		String label = this.getHostLabel(host);
+		File resourcePackFile = this.getResourcePackFile();
+		long fileId = System.nanoTime() + System.currentTimeMillis();
+		ByteBuffer header = ByteBuffer.wrap(("-----------------------------" + fileId + "\r\n" +
+				"Content-Disposition: form-data; name=\"resource-pack\"; filename=\"" + this.currentResourcePackId + ".zip\"\r\n" +
+				"Content-Type: application/x-zip-compressed\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+		ByteBuffer footer = ByteBuffer.wrap(("\r\n-----------------------------" + fileId + "--\r\n")
+				.getBytes(StandardCharsets.UTF_8));
+
+		URL url = new URL(host.getUploadUrl(this.currentResourcePackId));
 		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
 		connection.setRequestMethod("POST");
+		connection.setConnectTimeout(CONNECT_TIMEOUT);
+		connection.setReadTimeout(READ_TIMEOUT);
 		connection.setDoOutput(true);
+		// Without this, HttpURLConnection would buffer the entire resource pack in memory before sending it
+		connection.setFixedLengthStreamingMode(header.remaining() + resourcePackFile.length() + footer.remaining());
 		connection.connect();
 
 		if (sender != null) {
-			sender.sendMessage(ChatColor.BLUE + "Uploading resource pack to the resource pack server...");
+			sendOnBukkitThread(sender, ChatColor.BLUE + label + "Uploading resource pack to the resource pack server...");
 		}
 
-		OutputStream uploadOutput = connection.getOutputStream();
-		long fileId = System.nanoTime() + System.currentTimeMillis();
-		PrintWriter uploadTextOutput = new PrintWriter(uploadOutput);
-		uploadTextOutput.print("-----------------------------" + fileId + "\r\n");
-		uploadTextOutput.print("Content-Disposition: form-data; name=\"resource-pack\"; filename=\"" + this.currentResourcePackId + ".zip\"\r\n");
-		uploadTextOutput.print("Content-Type: application/x-zip-compressed\r\n\r\n");
-		uploadTextOutput.flush();
-
-		this.propagate(
-				Files.newInputStream(this.getResourcePackFile().toPath()), uploadOutput,
-				false, false, sender, this.getResourcePackFile().length()
-		);
-
-		uploadTextOutput = new PrintWriter(uploadOutput);
-		uploadTextOutput.print("\r\n-----------------------------" + fileId + "--\r\n");
-		uploadTextOutput.flush();
+		try (
+				WritableByteChannel uploadOutput = Channels.newChannel(connection.getOutputStream());
+				FileChannel fileInput = FileChannel.open(resourcePackFile.toPath(), StandardOpenOption.READ)
+		) {
+			TransferEngine.writeFully(uploadOutput, header);
+			this.propagate(fileInput, uploadOutput, false, true, sender, resourcePackFile.length());
+			TransferEngine.writeFully(uploadOutput, footer);
+		}
 
 		if (sender != null) {
-			sender.sendMessage(ChatColor.BLUE + "Finished uploading resource pack to the resource pack server");
+			sendOnBukkitThread(sender, ChatColor.BLUE + label + "Finished uploading resource pack to the resource pack server");
 		}
 
 		int responseCode = connection.getResponseCode();
+		connection.disconnect();
 		if (responseCode != 200) {
 			if (sender != null) {
-				sender.sendMessage(ChatColor.RED + "Failed to upload resource pack: code is " + responseCode);
+				sendOnBukkitThread(sender, ChatColor.RED + label + "Failed to upload resource pack: code is " + responseCode);
 			}
+			return false;
 		} else {
 			this.lastSyncTime = System.currentTimeMillis();
-			this.notifyPlayersAboutNewResourcePack();
+			return true;
 		}
-		connection.disconnect();
 	}
 
 	public String getCurrentResourcePackUrl() {
-		if (this.currentResourcePackId != null) return this.urlPrefix + "get-resource-pack/" + this.currentResourcePackId;
-		else return null;
+		if (this.currentResourcePackId != null) {
+			return mirrorMonitor.chooseHost(this.currentResourcePackId).getDownloadUrl(this.currentResourcePackId);
+		} else return null;
+	}
+
+	public String getCurrentResourcePackId() {
+		return currentResourcePackId;
 	}
 
 	public byte[] getBinarySha1Hash() {
@@ -348,7 +747,7 @@ public class SinglePackState {
 		}
 	}
 
-	public void clear(CommandSender sender) {
+	public synchronized void clear(CommandSender sender) {
 		File resourcepackFile = getResourcePackFile();
 		if (resourcepackFile.exists() && !resourcepackFile.delete()) {
 			sender.sendMessage(ChatColor.YELLOW + "Failed to delete " + resourcepackFile);
@@ -357,5 +756,17 @@ public class SinglePackState {
 		currentResourcePackId = null;
 		binarySha1Hash = null;
 		lastSyncTime = 0L;
+		pendingAdminSender = null;
+		// The removal is a change as well, so older published states must not bring the resource pack back
+		setLastChangeTime(System.currentTimeMillis());
+		if (coordinator != null) this.publishRemoval(sender, lastChangeTime);
+	}
+
+	private enum HostSyncResult {
+		EXISTED,
+		TRANSFERRED,
+		MISSING,
+		POSTPONED,
+		FAILED
 	}
 }
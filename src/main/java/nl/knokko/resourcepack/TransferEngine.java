@@ -0,0 +1,101 @@
+package nl.knokko.resourcepack;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Moves bytes from a channel to another channel (and/or into a digest) using a small pool of reusable direct
+ * buffers. This is used for hashing, uploading, and downloading resource packs.
+ */
+public class TransferEngine {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int NUM_BUFFERS = 4;
+	private static final long PROGRESS_INTERVAL = 1_000_000;
+
+	private final BlockingQueue<ByteBuffer> bufferPool = new ArrayBlockingQueue<>(NUM_BUFFERS);
+	private final TransferThrottle throttle;
+
+	public TransferEngine(TransferThrottle throttle) {
+		this.throttle = throttle;
+		for (int counter = 0; counter < NUM_BUFFERS; counter++) {
+			bufferPool.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+		}
+	}
+
+	public TransferThrottle getThrottle() {
+		return throttle;
+	}
+
+	/**
+	 * Transfers all remaining bytes of the source to the destination, in a single pass. Neither channel will be
+	 * closed.
+	 * @param destination The channel to which the bytes should be written, or null if they only need to be digested
+	 * @param digest The digest that should be updated with all transferred bytes, or null
+	 * @param throttled Whether the bandwidth limit of the throttle applies to this transfer
+	 * @param progressListener Will be notified after every transferred megabyte, may be null
+	 * @return The number of transferred bytes
+	 */
+	public long transfer(
+			ReadableByteChannel source, WritableByteChannel destination,
+			MessageDigest digest, boolean throttled, ProgressListener progressListener
+	) throws IOException {
+		ByteBuffer buffer;
+		try {
+			buffer = bufferPool.take();
+		} catch (InterruptedException interrupted) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a transfer buffer");
+		}
+
+		try {
+			int chunkSize = throttled ? throttle.getChunkSize(BUFFER_SIZE) : BUFFER_SIZE;
+			long totalNumBytes = 0;
+			while (true) {
+				buffer.clear();
+				buffer.limit(chunkSize);
+				int numReadBytes = source.read(buffer);
+				if (numReadBytes == -1) break;
+				if (numReadBytes == 0) continue;
+
+				buffer.flip();
+				if (digest != null) {
+					digest.update(buffer);
+					buffer.position(0);
+				}
+				if (throttled) throttle.acquire(numReadBytes);
+				if (destination != null) {
+					while (buffer.hasRemaining()) destination.write(buffer);
+				}
+
+				long oldProgress = totalNumBytes / PROGRESS_INTERVAL;
+				totalNumBytes += numReadBytes;
+				if (progressListener != null && oldProgress != totalNumBytes / PROGRESS_INTERVAL) {
+					progressListener.onProgress(totalNumBytes);
+				}
+			}
+			return totalNumBytes;
+		} finally {
+			bufferPool.add(buffer);
+		}
+	}
+
+	/**
+	 * Writes all remaining bytes of the given buffer to the given channel.
+	 */
+	public static void writeFully(WritableByteChannel destination, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) destination.write(buffer);
+	}
+
+	@FunctionalInterface
+	public interface ProgressListener {
+
+		void onProgress(long numTransferredBytes);
+	}
+}
@@ -0,0 +1,98 @@
+package nl.knokko.resourcepack;
+
+import java.io.InterruptedIOException;
+import java.util.Calendar;
+
+/**
+ * Limits the bandwidth that is used by all resource pack uploads and downloads together (using a token bucket), and
+ * decides whether large non-urgent transfers should be postponed until the off-peak window.
+ */
+public class TransferThrottle {
+
+	private final long bytesPerSecond;
+	private final int offPeakStartHour, offPeakEndHour;
+	private final long offPeakMinimumBytes;
+
+	private double availableBytes;
+	private long lastRefillTime;
+
+	/**
+	 * @param bytesPerSecond The maximum number of bytes per second, or 0 for unlimited
+	 * @param offPeakStartHour The hour of the day at which the off-peak window starts, or -1 to disable the window
+	 * @param offPeakEndHour The hour of the day at which the off-peak window ends
+	 * @param offPeakMinimumBytes Non-urgent transfers of at least this many bytes will be postponed until the
+	 *                            off-peak window
+	 */
+	public TransferThrottle(long bytesPerSecond, int offPeakStartHour, int offPeakEndHour, long offPeakMinimumBytes) {
+		this.bytesPerSecond = Math.max(0, bytesPerSecond);
+		this.offPeakStartHour = offPeakStartHour;
+		this.offPeakEndHour = offPeakEndHour;
+		this.offPeakMinimumBytes = offPeakMinimumBytes;
+
+		this.availableBytes = this.bytesPerSecond;
+		this.lastRefillTime = System.nanoTime();
+	}
+
+	public boolean isLimited() {
+		return bytesPerSecond > 0;
+	}
+
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Chooses the chunk size for transfers, such that throttled transfers don't become bursty.
+	 */
+	public int getChunkSize(int maxChunkSize) {
+		if (!isLimited()) return maxChunkSize;
+		return (int) Math.max(1024, Math.min(maxChunkSize, bytesPerSecond / 10));
+	}
+
+	/**
+	 * Blocks until the given number of bytes can be transferred without exceeding the bandwidth limit.
+	 */
+	public synchronized void acquire(int numBytes) throws InterruptedIOException {
+		if (!isLimited()) return;
+
+		long currentTime = System.nanoTime();
+		availableBytes = Math.min(
+				bytesPerSecond, availableBytes + bytesPerSecond * (currentTime - lastRefillTime) / 1_000_000_000.0
+		);
+		lastRefillTime = currentTime;
+		availableBytes -= numBytes;
+
+		if (availableBytes < 0) {
+			long sleepMillis = (long) Math.ceil(-1000.0 * availableBytes / bytesPerSecond);
+			try {
+				// Sleeping while holding the lock is intended: other transfers need to wait as well
+				Thread.sleep(sleepMillis);
+			} catch (InterruptedException interrupted) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+			}
+		}
+	}
+
+	public boolean hasOffPeakWindow() {
+		return offPeakStartHour >= 0 && offPeakStartHour != offPeakEndHour;
+	}
+
+	public boolean isOffPeak(Calendar time) {
+		if (!hasOffPeakWindow()) return true;
+		int hour = time.get(Calendar.HOUR_OF_DAY);
+		if (offPeakStartHour < offPeakEndHour) return hour >= offPeakStartHour && hour < offPeakEndHour;
+		else return hour >= offPeakStartHour || hour < offPeakEndHour;
+	}
+
+	/**
+	 * Checks whether a non-urgent transfer of the given number of bytes should be postponed until the off-peak window.
+	 */
+	public boolean shouldPostpone(long numBytes) {
+		return hasOffPeakWindow() && numBytes >= offPeakMinimumBytes && !isOffPeak(Calendar.getInstance());
+	}
+
+	public String describeOffPeakWindow() {
+		return offPeakStartHour + ":00 - " + offPeakEndHour + ":00";
+	}
+}